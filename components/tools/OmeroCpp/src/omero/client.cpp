@@ -16,6 +16,9 @@
  * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
  */
 
+#include <algorithm>
+#include <deque>
+#include <fstream>
 #include <iosfwd>
 #include <sstream>
 #include <stdexcept>
@@ -25,12 +28,14 @@
 #include <omero/api/IAdmin.h>
 #include <omero/api/IConfig.h>
 #include <omero/api/ISession.h>
+#include <omero/api/RawFileStore.h>
 #include <omero/model/IObject.h>
 #include <omero/IceNoWarnPop.h>
 
 #include <omero/client.h>
 #include <omero/RTypesI.h>
 
+#include <omero/model/OriginalFileI.h>
 #include <omero/model/SessionI.h>
 #include <omero/util/uuid.h>
 #include <omero/ObjectFactory.h>
@@ -38,6 +43,13 @@
 
 using namespace std;
 
+namespace {
+    /*
+     * Number of RawFileStore writes which client::upload keeps in flight.
+     */
+    const size_t MAX_PENDING_WRITES = 4;
+}
+
 namespace omero {
 
     void client::optionallySetProperty(const Ice::InitializationData& id,
@@ -723,10 +735,144 @@ namespace omero {
     // --------------------------------------------------------------------
 
 
-    void client::upload(const std::string&,
-                    const omero::model::OriginalFilePtr&,
-                    int /*blockSize*/) {
-        throw ClientError(__FILE__, __LINE__, "Not yet implemented");
+    void client::upload(const std::string& file,
+                    const omero::model::OriginalFilePtr& ofile,
+                    int blockSize) {
+
+        std::ifstream in(file.c_str(), std::ios::in | std::ios::binary);
+        if (!in) {
+            throw ClientError(__FILE__, __LINE__, "Cannot open file for reading");
+        }
+        in.seekg(0, std::ios::end);
+        Ice::Long size = in.tellg();
+        in.seekg(0, std::ios::beg);
+
+        if (blockSize <= 0) {
+            blockSize = getDefaultBlockSize();
+        }
+
+        omero::model::OriginalFilePtr target = ofile;
+        if (!target) {
+            target = new omero::model::OriginalFileI();
+        }
+        if (!target->getId()) {
+            std::string::size_type sep = file.find_last_of("/\\");
+            if (!target->getName()) {
+                target->setName(omero::rtypes::rstring(
+                        sep == std::string::npos ? file : file.substr(sep + 1)));
+            }
+            if (!target->getPath()) {
+                target->setPath(omero::rtypes::rstring(
+                        sep == std::string::npos ? "" : file.substr(0, sep + 1)));
+            }
+            target->setSize(omero::rtypes::rlong(size));
+            target = omero::model::OriginalFilePtr::dynamicCast(
+                    getSession()->getUpdateService()->saveAndReturnObject(target));
+        }
+
+        omero::api::RawFileStorePrx rfs = getSession()->createRawFileStore();
+        std::deque<Ice::AsyncResultPtr> pending;
+        try {
+            rfs->setFileId(target->getId()->getValue());
+            Ice::Long offset = 0;
+            while (offset < size) {
+                Ice::Int len = (Ice::Int) std::min<Ice::Long>(blockSize, size - offset);
+                Ice::ByteSeq block(len);
+                in.read(reinterpret_cast<char*>(&block[0]), len);
+                if (in.gcount() != len) {
+                    throw ClientError(__FILE__, __LINE__, "Cannot read from file");
+                }
+                // Bound the writes in flight so that a slow server holds
+                // back the reader rather than buffering the whole file.
+                if (pending.size() >= MAX_PENDING_WRITES) {
+                    rfs->end_write(pending.front());
+                    pending.pop_front();
+                }
+                pending.push_back(rfs->begin_write(block, offset, len));
+                offset += len;
+            }
+            while (!pending.empty()) {
+                rfs->end_write(pending.front());
+                pending.pop_front();
+            }
+            rfs->save();
+        } catch (...) {
+            try {
+                rfs->close();
+            } catch (...) {
+                getCommunicator()->getLogger()->warning(
+                        "Failed to close RawFileStore after upload error");
+            }
+            throw;
+        }
+        rfs->close();
+    }
+
+
+    // --------------------------------------------------------------------
+
+
+    void client::download(const omero::model::OriginalFilePtr& ofile,
+                    const std::string& file,
+                    int blockSize) {
+
+        if (!ofile || !ofile->getId()) {
+            throw ClientError(__FILE__, __LINE__, "No original file to download");
+        }
+        if (blockSize <= 0) {
+            blockSize = getDefaultBlockSize();
+        }
+
+        std::ofstream out(file.c_str(),
+                std::ios::out | std::ios::binary | std::ios::trunc);
+        if (!out) {
+            throw ClientError(__FILE__, __LINE__, "Cannot open file for writing");
+        }
+
+        omero::api::RawFileStorePrx rfs = getSession()->createRawFileStore();
+        try {
+            rfs->setFileId(ofile->getId()->getValue());
+            Ice::Long size = rfs->size();
+            Ice::Long offset = 0;
+            Ice::AsyncResultPtr pending;
+            if (size > 0) {
+                pending = rfs->begin_read(0,
+                        (Ice::Int) std::min<Ice::Long>(blockSize, size));
+            }
+            while (pending) {
+                Ice::ByteSeq block = rfs->end_read(pending);
+                pending = 0;
+                if (block.empty()) {
+                    throw ClientError(__FILE__, __LINE__, "Unexpected end of file");
+                }
+                offset += block.size();
+                // Keep one read in flight while this block hits the disk.
+                if (offset < size) {
+                    pending = rfs->begin_read(offset,
+                            (Ice::Int) std::min<Ice::Long>(blockSize, size - offset));
+                }
+                out.write(reinterpret_cast<const char*>(&block[0]), block.size());
+                if (!out) {
+                    throw ClientError(__FILE__, __LINE__, "Cannot write to file");
+                }
+            }
+            if (offset != size) {
+                throw ClientError(__FILE__, __LINE__, "Unexpected end of file");
+            }
+            out.close();
+            if (!out) {
+                throw ClientError(__FILE__, __LINE__, "Cannot write to file");
+            }
+        } catch (...) {
+            try {
+                rfs->close();
+            } catch (...) {
+                getCommunicator()->getLogger()->warning(
+                        "Failed to close RawFileStore after download error");
+            }
+            throw;
+        }
+        rfs->close();
     }
 
 
@@ -290,12 +290,24 @@ namespace omero {
         /*
          * Utility method to upload a file. The original file can be a null pointer, and the
          * block size can be 0 or negative to use defaults. The string must point to a valid
-         * file.
+         * file. Blocks are written asynchronously with a bounded number of writes in
+         * flight, and the file is saved once all of them have completed.
          */
         void upload(const std::string& file,
                     const omero::model::OriginalFilePtr& ofile,
                     int blockSize);
 
+        /*
+         * Utility method to download an original file to the given local path.
+         * The block size can be 0 or negative to use defaults. The next block
+         * is requested while the current one is being written so that the
+         * transfer is bound by the network or the disk rather than by round
+         * trips to the server.
+         */
+        void download(const omero::model::OriginalFilePtr& ofile,
+                      const std::string& file,
+                      int blockSize = 0);
+
         /**
          * Returns all active StatefulServiceInterface proxies. This can
          * be used to call close before calling setSecurityContext.
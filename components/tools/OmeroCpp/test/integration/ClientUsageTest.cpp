@@ -10,7 +10,13 @@
 #include <omero/IceNoWarnPop.h>
 #include <omero/fixture.h>
 #include <omero/client.h>
+#include <omero/model/OriginalFileI.h>
+#include <omero/sys/ParametersI.h>
+#include <omero/util/uuid.h>
 #include <algorithm>
+#include <cstdio>
+#include <fstream>
+#include <iterator>
 
 using namespace omero::rtypes;
 
@@ -82,3 +88,75 @@ TEST(ClientUsageTest, testKillSession)
     int count = f.client->killSession();
     ASSERT_EQ(count, 1);
 }
+
+TEST(ClientUsageTest, testDownloadInSeveralBlocks)
+{
+    Fixture f;
+    f.login();
+    omero::api::ServiceFactoryPrx sf = f.client->getSession();
+
+    std::string content;
+    for (int i = 0; i < 1000; i++) {
+        content += "0123456789";
+    }
+
+    omero::model::OriginalFilePtr file = new omero::model::OriginalFileI();
+    file->setName(rstring("download.txt"));
+    file->setPath(rstring("/tmp"));
+    file->setSize(rlong((Ice::Long) content.size()));
+    file = omero::model::OriginalFilePtr::dynamicCast(
+            sf->getUpdateService()->saveAndReturnObject(file));
+
+    omero::api::RawFileStorePrx rfs = sf->createRawFileStore();
+    rfs->setFileId(file->getId()->getValue());
+    rfs->write(Ice::ByteSeq(content.begin(), content.end()), 0, (Ice::Int) content.size());
+    file = rfs->save();
+    rfs->close();
+
+    // A block size which does not divide the file size.
+    std::string path = "/tmp/" + omero::util::generate_uuid() + ".txt";
+    f.client->download(file, path, 333);
+
+    std::ifstream in(path.c_str(), std::ios::in | std::ios::binary);
+    std::string downloaded((std::istreambuf_iterator<char>(in)),
+            std::istreambuf_iterator<char>());
+    in.close();
+    remove(path.c_str());
+    ASSERT_EQ(content, downloaded);
+}
+
+TEST(ClientUsageTest, testUploadInSeveralBlocks)
+{
+    Fixture f;
+    f.login();
+    omero::api::ServiceFactoryPrx sf = f.client->getSession();
+
+    std::string content;
+    for (int i = 0; i < 1000; i++) {
+        content += "0123456789";
+    }
+    std::string path = "/tmp/" + omero::util::generate_uuid() + ".txt";
+    std::ofstream out(path.c_str(), std::ios::out | std::ios::binary);
+    out << content;
+    out.close();
+
+    // More blocks than writes kept in flight.
+    f.client->upload(path, omero::model::OriginalFilePtr(), 333);
+    remove(path.c_str());
+
+    omero::sys::ParametersIPtr p = new omero::sys::ParametersI();
+    p->add("name", rstring(path.substr(path.find_last_of('/') + 1)));
+    omero::model::OriginalFilePtr file = omero::model::OriginalFilePtr::dynamicCast(
+            sf->getQueryService()->findByQuery(
+                    "select f from OriginalFile f where f.name = :name", p));
+    ASSERT_TRUE(file);
+    ASSERT_EQ((Ice::Long) content.size(), file->getSize()->getValue());
+
+    f.client->download(file, path, 1000);
+    std::ifstream in(path.c_str(), std::ios::in | std::ios::binary);
+    std::string downloaded((std::istreambuf_iterator<char>(in)),
+            std::istreambuf_iterator<char>());
+    in.close();
+    remove(path.c_str());
+    ASSERT_EQ(content, downloaded);
+}
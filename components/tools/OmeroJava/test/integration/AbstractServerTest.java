@@ -14,6 +14,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -414,6 +415,36 @@ public class AbstractServerTest extends AbstractTest {
         return (ImageAnnotationLink) iUpdate.saveAndReturnObject(link);
     }
 
+    /**
+     * Add the given annotations to the given image, saving all the links in a single call.
+     * @param image an image
+     * @param annotations some annotations
+     * @return the new loaded links from the image to the annotations, in the order of the annotations
+     * @throws ServerError an error possibly occurring during saving of the links
+     */
+    protected List<ImageAnnotationLink> linkParentToChildren(Image image, List<? extends Annotation> annotations)
+            throws ServerError {
+        if (image.isLoaded()) {
+            image = (Image) image.proxy();
+        }
+
+        final List<IObject> links = new ArrayList<IObject>(annotations.size());
+        for (Annotation annotation : annotations) {
+            if (annotation.isLoaded() && annotation.getId() != null) {
+                annotation = (Annotation) annotation.proxy();
+            }
+            final ImageAnnotationLink link = new ImageAnnotationLinkI();
+            link.setParent(image);
+            link.setChild(annotation);
+            links.add(link);
+        }
+        final List<ImageAnnotationLink> saved = new ArrayList<ImageAnnotationLink>(links.size());
+        for (final IObject link : iUpdate.saveAndReturnArray(links)) {
+            saved.add((ImageAnnotationLink) link);
+        }
+        return saved;
+    }
+
     /**
      * Create a link between a Project and a Dataset.
      * @param project an OMERO Project
@@ -456,6 +487,69 @@ public class AbstractServerTest extends AbstractTest {
         return (DatasetImageLink) iUpdate.saveAndReturnObject(link);
     }
 
+    /**
+     * Create links between a Dataset and Images, saving all the links in a single call.
+     * @param dataset an OMERO Dataset
+     * @param images some OMERO Images
+     * @return the created links, in the order of the images
+     * @throws ServerError an error possibly occurring during saving of the links
+     */
+    protected List<DatasetImageLink> linkParentToChildren(Dataset dataset, Collection<? extends IObject> images)
+            throws ServerError {
+        if (dataset.isLoaded() && dataset.getId() != null) {
+            dataset = (Dataset) dataset.proxy();
+        }
+
+        final List<IObject> links = new ArrayList<IObject>(images.size());
+        for (IObject image : images) {
+            if (image.isLoaded() && image.getId() != null) {
+                image = image.proxy();
+            }
+            final DatasetImageLink link = new DatasetImageLinkI();
+            link.setParent(dataset);
+            link.setChild((Image) image);
+            links.add(link);
+        }
+        final List<DatasetImageLink> saved = new ArrayList<DatasetImageLink>(links.size());
+        for (final IObject link : iUpdate.saveAndReturnArray(links)) {
+            saved.add((DatasetImageLink) link);
+        }
+        return saved;
+    }
+
+    /**
+     * Run a grouped count, a projection such as
+     * <code>SELECT parent.id, COUNT(id) FROM DatasetImageLink WHERE parent.id IN (:ids) GROUP BY parent.id</code>
+     * whose rows each give an ID and a count.
+     * @param hql the query
+     * @param params the parameters of the query
+     * @return the count for each ID returned by the query, in the order of the rows
+     * @throws ServerError an error possibly occurring during the query
+     */
+    protected Map<Long, Long> countGrouped(String hql, Parameters params) throws ServerError {
+        final Map<Long, Long> counts = new LinkedHashMap<Long, Long>();
+        for (final List<RType> row : iQuery.projection(hql, params)) {
+            counts.put(((RLong) row.get(0)).getValue(), ((RLong) row.get(1)).getValue());
+        }
+        return counts;
+    }
+
+    /**
+     * Run a projection whose rows each give an ID, such as
+     * <code>SELECT DISTINCT parent.id FROM DatasetImageLink WHERE child.id IN (:ids)</code>.
+     * @param hql the query
+     * @param params the parameters of the query
+     * @return the IDs returned by the query
+     * @throws ServerError an error possibly occurring during the query
+     */
+    protected Set<Long> queryIds(String hql, Parameters params) throws ServerError {
+        final Set<Long> ids = new HashSet<Long>();
+        for (final List<RType> row : iQuery.projection(hql, params)) {
+            ids.add(((RLong) row.get(0)).getValue());
+        }
+        return ids;
+    }
+
     /**
      * Assert that the given object is in the given group.
      * @param object a model object
@@ -775,6 +775,70 @@ public class DuplicationTest extends AbstractServerTest {
         Assert.assertEquals(getImageAnnotations(reportedImageId), Collections.singleton(reportedAttachmentId));
     }
 
+    /**
+     * Test duplication of several images with attachments in a single request,
+     * with the duplicate attachments referencing the same original files rather than copies of them.
+     * @throws Exception unexpected
+     */
+    @Test
+    public void testDuplicateImagesSharingAttachedFiles() throws Exception {
+        newUserAndGroup("rwra--");
+
+        /* create images each with an attachment */
+
+        final int imageCount = 3;
+        List<IObject> originalLinks = new ArrayList<IObject>();
+        for (int ii = 0; ii < imageCount; ii++) {
+            final FileAnnotation originalAttachment = new FileAnnotationI();
+            originalAttachment.setFile(mmFactory.createOriginalFile());
+            final ImageAnnotationLink originalLink = new ImageAnnotationLinkI();
+            originalLink.setParent(mmFactory.simpleImage());
+            originalLink.setChild(originalAttachment);
+            originalLinks.add(originalLink);
+        }
+        originalLinks = iUpdate.saveAndReturnArray(originalLinks);
+
+        /* note the objects (and their IDs) that were thus created and saved */
+
+        final List<Long> originalImageIds = new ArrayList<Long>();
+        final Set<Long> originalAttachmentIds = new HashSet<Long>();
+        for (final IObject originalLink : originalLinks) {
+            originalImageIds.add(((ImageAnnotationLink) originalLink).getParent().getId().getValue());
+            originalAttachmentIds.add(((ImageAnnotationLink) originalLink).getChild().getId().getValue());
+        }
+        testImages.addAll(originalImageIds);
+        final String hql = "SELECT file.id FROM FileAnnotation WHERE id IN (:ids)";
+        final Set<Long> originalFileIds = new HashSet<Long>();
+        for (final List<RType> result : iQuery.projection(hql, new ParametersI().addIds(originalAttachmentIds))) {
+            originalFileIds.add(((RLong) result.get(0)).getValue());
+        }
+        Assert.assertEquals(originalFileIds.size(), imageCount);
+
+        /* duplicate the images, referencing rather than duplicating the files */
+
+        final Duplicate dup = Requests.duplicate().target("Image").id(originalImageIds).referenceType("OriginalFile").build();
+        final DuplicateResponse response = (DuplicateResponse) doChange(dup);
+
+        /* check that the images and attachments were duplicated but not the files */
+
+        final Set<Long> reportedImageIds = new HashSet<Long>(response.duplicates.get("ome.model.core.Image"));
+        final Set<Long> reportedAttachmentIds = new HashSet<Long>(response.duplicates.get("ome.model.annotations.FileAnnotation"));
+        testImages.addAll(reportedImageIds);
+
+        Assert.assertEquals(reportedImageIds.size(), imageCount);
+        Assert.assertEquals(reportedAttachmentIds.size(), imageCount);
+        Assert.assertFalse(response.duplicates.containsKey("ome.model.core.OriginalFile"));
+        Assert.assertTrue(Sets.intersection(originalAttachmentIds, reportedAttachmentIds).isEmpty());
+
+        /* check that the duplicate attachments are of the original files */
+
+        final Set<Long> reportedFileIds = new HashSet<Long>();
+        for (final List<RType> result : iQuery.projection(hql, new ParametersI().addIds(reportedAttachmentIds))) {
+            reportedFileIds.add(((RLong) result.get(0)).getValue());
+        }
+        Assert.assertEquals(reportedFileIds, originalFileIds);
+    }
+
     /**
      * Tests duplication of a cyclic subgraph.
      * @throws Exception unexpected
@@ -4,6 +4,7 @@
  */
 package integration;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -19,11 +20,21 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Source;
 import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
@@ -139,6 +150,16 @@ public class ExporterTest extends AbstractServerTest {
      */
     private static final int IMAGE_ANNOTATED_DATA = 2;
 
+    /**
+     * The compiled stylesheets by name. Compiled stylesheets are thread-safe
+     * so each one is compiled once and shared by all the tests.
+     */
+    private static final ConcurrentMap<String, Templates> TEMPLATES =
+            new ConcurrentHashMap<String, Templates>();
+
+    /** The generated OME-XML of the mock images by type of image.*/
+    private final Map<Integer, byte[]> imageFiles = new HashMap<Integer, byte[]>();
+
     /** The various transforms read from the configuration file.*/
     private Map<String, List<String>> downgrades;
 
@@ -164,40 +185,89 @@ public class ExporterTest extends AbstractServerTest {
         validator.parseFile(input);
     }
 
+    /**
+     * Reads the generated file from the exporter block by block, passing
+     * each block to the output as soon as it is read so that neither side
+     * holds the whole file in a single message.
+     *
+     * @param exporter
+     *            The exporter holding the generated file.
+     * @param size
+     *            The size of the generated file.
+     * @param out
+     *            The stream to write the file to.
+     * @return The number of bytes read.
+     * @throws Exception
+     *             Thrown if an error occurred while reading or writing.
+     */
+    private long read(ExporterPrx exporter, long size, OutputStream out)
+            throws Exception {
+        long offset = 0;
+        while (offset < size) {
+            byte[] values = exporter.read(offset, (int) Math.min(INC, size - offset));
+            if (values.length == 0) {
+                break;
+            }
+            out.write(values);
+            offset += values.length;
+        }
+        return offset;
+    }
+
+    /**
+     * Returns the compiled stylesheet with the specified name, compiling it
+     * the first time it is requested.
+     *
+     * @param name
+     *            The name of the stylesheet.
+     * @return See above.
+     * @throws Exception
+     *             Thrown if an error occurred while compiling.
+     */
+    private Templates getTemplates(String name) throws Exception {
+        Templates templates = TEMPLATES.get(name);
+        if (templates == null) {
+            TransformerFactory transformerFactory = TransformerFactory.newInstance();
+            Resolver resolver = new Resolver();
+            transformerFactory.setURIResolver(resolver);
+            InputStream stream = getStream(name);
+            try {
+                templates = transformerFactory.newTemplates(new StreamSource(stream));
+            } finally {
+                if (stream != null) stream.close();
+                resolver.close();
+            }
+            Templates existing = TEMPLATES.putIfAbsent(name, templates);
+            if (existing != null) templates = existing;
+        }
+        return templates;
+    }
+
     /**
      * Applies the transforms to the specified XML file.
      *
      * @param inputXML
      *            The file to transforms.
      * @param transforms
-     *            The collection of transforms.
+     *            The names of the stylesheets to apply.
      * @return See above.
      * @throws Exception
      *             Thrown if an error occurred during the transformations.
      */
-    private File applyTransforms(File inputXML, List<InputStream> transforms)
+    private File applyTransforms(File inputXML, List<String> transforms)
             throws Exception {
-        TransformerFactory factory;
         Transformer transformer;
-        InputStream stream;
-        Iterator<InputStream> i = transforms.iterator();
+        Iterator<String> i = transforms.iterator();
         File output;
         InputStream in = null;
         OutputStream out = null;
-        Resolver resolver = null;
         while (i.hasNext()) {
-            stream = i.next();
             try {
-                factory = TransformerFactory.newInstance();
-                resolver = new Resolver();
-                factory.setURIResolver(resolver);
                 output = File.createTempFile(
                         RandomStringUtils.random(100, false, true),
                         "."+ OME_XML);
                 output.deleteOnExit();
-                Source src = new StreamSource(stream);
-                Templates template = factory.newTemplates(src);
-                transformer = template.newTransformer();
+                transformer = getTemplates(i.next()).newTransformer();
                 transformer.setParameter(OutputKeys.ENCODING, Constants.ENCODING);
                 out = new FileOutputStream(output);
                 in = new FileInputStream(inputXML);
@@ -207,10 +277,8 @@ public class ExporterTest extends AbstractServerTest {
             } catch (Exception e) {
                 throw new Exception("Cannot apply transform", e);
             } finally {
-                if (stream != null) stream.close();
                 if (out != null) out.close();
                 if (in != null) in.close();
-                if (resolver != null) resolver.close();
             }
         }
         File f = File.createTempFile(
@@ -442,9 +510,9 @@ public class ExporterTest extends AbstractServerTest {
         long size = exporter.generateTiff();
         Assert.assertTrue(size > 0);
         // now read
-        byte[] values = exporter.read(0, (int) size);
-        Assert.assertNotNull(values);
-        Assert.assertEquals(values.length, size);
+        ByteArrayOutputStream values = new ByteArrayOutputStream();
+        Assert.assertEquals(read(exporter, size, values), size);
+        Assert.assertEquals(values.size(), size);
         exporter.close();
     }
 
@@ -466,12 +534,76 @@ public class ExporterTest extends AbstractServerTest {
         long size = exporter.generateTiff();
         Assert.assertTrue(size > 0);
         // now read
-        byte[] values = exporter.read(0, (int) size);
-        Assert.assertNotNull(values);
-        Assert.assertEquals(values.length, size);
+        ByteArrayOutputStream values = new ByteArrayOutputStream();
+        Assert.assertEquals(read(exporter, size, values), size);
+        Assert.assertEquals(values.size(), size);
         exporter.close();
     }
 
+    /**
+     * Tests to export several images as OME-TIFF concurrently, one exporter
+     * per image on a bounded pool, and to package the results as a single
+     * compressed zip archive.
+     *
+     * @throws Exception
+     *             Thrown if an error occurred.
+     */
+    @Test
+    public void testExportAsOMETIFFConcurrently() throws Exception {
+        final int imageCount = 4;
+        final List<Long> imageIds = new ArrayList<Long>();
+        for (int i = 0; i < imageCount; i++) {
+            imageIds.add(createImageToExport().getId().getValue());
+        }
+        final Map<Long, Future<File>> exports = new HashMap<Long, Future<File>>();
+        final ExecutorService threadPool = Executors.newFixedThreadPool(2);
+        File zip = null;
+        try {
+            for (final long imageId : imageIds) {
+                exports.put(imageId, threadPool.submit(new Callable<File>() {
+                    @Override
+                    public File call() throws Exception {
+                        final File f = File.createTempFile(
+                                RandomStringUtils.random(100, false, true), "." + OME_TIFF);
+                        f.deleteOnExit();
+                        final ExporterPrx exporter = factory.createExporter();
+                        try (OutputStream out = new FileOutputStream(f)) {
+                            exporter.addImage(imageId);
+                            final long size = exporter.generateTiff();
+                            Assert.assertEquals(read(exporter, size, out), size);
+                        } finally {
+                            exporter.close();
+                        }
+                        return f;
+                    }
+                }));
+            }
+            zip = File.createTempFile(RandomStringUtils.random(100, false, true), ".zip");
+            try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+                out.setLevel(Deflater.BEST_SPEED);
+                for (final long imageId : imageIds) {
+                    final File f = exports.get(imageId).get(2, TimeUnit.MINUTES);
+                    out.putNextEntry(new ZipEntry("image" + imageId + "." + OME_TIFF));
+                    Files.copy(f.toPath(), out);
+                    out.closeEntry();
+                    f.delete();
+                }
+            }
+            try (ZipFile archive = new ZipFile(zip)) {
+                Assert.assertEquals(archive.size(), imageCount);
+                for (final long imageId : imageIds) {
+                    final ZipEntry entry = archive.getEntry("image" + imageId + "." + OME_TIFF);
+                    Assert.assertNotNull(entry);
+                    Assert.assertTrue(entry.getSize() > 0);
+                }
+            }
+        } finally {
+            threadPool.shutdownNow();
+            threadPool.awaitTermination(1, TimeUnit.MINUTES);
+            if (zip != null) zip.delete();
+        }
+    }
+
     /**
      * Generates an <code>OME-XML</code> file.
      * 
@@ -486,6 +618,11 @@ public class ExporterTest extends AbstractServerTest {
         // First create an image
         File f = File.createTempFile(RandomStringUtils.random(100, false, true),
                 "." + OME_XML);
+        byte[] content = imageFiles.get(index);
+        if (content != null) {
+            Files.write(f.toPath(), content);
+            return f;
+        }
         XMLMockObjects xml = new XMLMockObjects();
         XMLWriter writer = new XMLWriter();
         if (index == IMAGE_ROI) {
@@ -496,6 +633,7 @@ public class ExporterTest extends AbstractServerTest {
         } else {
             writer.writeFile(f, xml.createImageWithAcquisitionData(), true);
         }
+        imageFiles.put(index, Files.readAllBytes(f.toPath()));
         return f;
     }
 
@@ -535,14 +673,9 @@ public class ExporterTest extends AbstractServerTest {
                 } else {
                     size = store.generateXml();
                 }
-                long offset = 0;
                 try {
-                    for (offset = 0; (offset + INC) < size;) {
-                        stream.write(store.read(offset, INC));
-                        offset += INC;
-                    }
+                    read(store, size, stream);
                 } finally {
-                    stream.write(store.read(offset, (int) (size - offset)));
                     stream.close();
                 }
             } catch (Exception e) {
@@ -692,19 +825,12 @@ public class ExporterTest extends AbstractServerTest {
     {
         List<Target> targets = new ArrayList<Target>();
         Object[][] data = null;
-        List<String> l;
-        Iterator<String> j;
         Entry<String, List<String>> e;
         Iterator<Entry<String, List<String>>> i = values.entrySet().iterator();
         while (i.hasNext()) {
             e = i.next();
-            l = e.getValue();
-            List<InputStream> streams = new ArrayList<InputStream>();
-            j = l.iterator();
-            while (j.hasNext()) {
-                streams.add(getStream(j.next()));
-            }
-            targets.add(new Target(streams, e.getKey()));
+            targets.add(new Target(new ArrayList<String>(e.getValue()),
+                    e.getKey()));
         }
         int index = 0;
         Iterator<Target> k = targets.iterator();
@@ -754,16 +880,11 @@ public class ExporterTest extends AbstractServerTest {
      * @param target The schema to start from for the upgrade.
      * @return See above.
      */
-    private List<InputStream> retrieveDowngrade(String target)
+    private List<String> retrieveDowngrade(String target)
     {
         List<String> list = downgrades.get(target);
         if (CollectionUtils.isEmpty(list)) return null;
-        List<InputStream> streams = new ArrayList<InputStream>();
-        Iterator<String> j = list.iterator();
-        while (j.hasNext()) {
-            streams.add(getStream(j.next()));
-        }
-        return streams;
+        return new ArrayList<String>(list);
     }
 
     /**
@@ -1028,7 +1149,7 @@ public class ExporterTest extends AbstractServerTest {
         File upgraded = null;
         try {
             f = createImageFile(IMAGE); //2015 image
-            List<InputStream> transforms = retrieveDowngrade(target.getSource());
+            List<String> transforms = retrieveDowngrade(target.getSource());
             //Create file to upgrade
             transformed = applyTransforms(f, transforms);
             //now upgrade the file.
@@ -1058,7 +1179,7 @@ public class ExporterTest extends AbstractServerTest {
         File upgraded = null;
         try {
             f = createImageFile(IMAGE_ROI); //2015 image
-            List<InputStream> transforms = retrieveDowngrade(target.getSource());
+            List<String> transforms = retrieveDowngrade(target.getSource());
             //Create file to upgrade
             transformed = applyTransforms(f, transforms);
             //now upgrade the file.
@@ -1088,7 +1209,7 @@ public class ExporterTest extends AbstractServerTest {
         File upgraded = null;
         try {
             f = createImageFile(IMAGE_ANNOTATED_DATA); //2015 image
-            List<InputStream> transforms = retrieveDowngrade(target.getSource());
+            List<String> transforms = retrieveDowngrade(target.getSource());
             //Create file to upgrade
             transformed = applyTransforms(f, transforms);
             //now upgrade the file.
@@ -1119,12 +1240,12 @@ public class ExporterTest extends AbstractServerTest {
         File upgraded = null;
         try {
             f = createImageFile(IMAGE); //2015 image
-            List<InputStream> transforms = retrieveDowngrade("2003-FC");
+            List<String> transforms = retrieveDowngrade("2003-FC");
             //Create file to upgrade
             transformed = applyTransforms(f, transforms);
             //now upgrade the file to 2008-09
-            List<InputStream> upgrades = new ArrayList<InputStream>();
-            upgrades.add(getStream("2003-FC-to-2008-09.xsl"));
+            List<String> upgrades = new ArrayList<String>();
+            upgrades.add("2003-FC-to-2008-09.xsl");
             upgraded = applyTransforms(transformed, upgrades);
             //validate the file
             validate(upgraded);
@@ -1150,12 +1271,12 @@ public class ExporterTest extends AbstractServerTest {
         File upgraded = null;
         try {
             f = createImageFile(IMAGE); //2015 image
-            List<InputStream> transforms = retrieveDowngrade("2007-06");
+            List<String> transforms = retrieveDowngrade("2007-06");
             //Create file to upgrade
             transformed = applyTransforms(f, transforms);
             //now upgrade the file to 2008-02
-            List<InputStream> upgrades = new ArrayList<InputStream>();
-            upgrades.add(getStream("2007-06-to-2008-02.xsl"));
+            List<String> upgrades = new ArrayList<String>();
+            upgrades.add("2007-06-to-2008-02.xsl");
             upgraded = applyTransforms(transformed, upgrades);
             //validate the file
             validate(upgraded);
@@ -1181,12 +1302,12 @@ public class ExporterTest extends AbstractServerTest {
         File upgraded = null;
         try {
             f = createImageFile(IMAGE); //2015 image
-            List<InputStream> transforms = retrieveDowngrade("2007-06");
+            List<String> transforms = retrieveDowngrade("2007-06");
             //Create file to upgrade
             transformed = applyTransforms(f, transforms);
             //now upgrade the file to 2008-09
-            List<InputStream> upgrades = new ArrayList<InputStream>();
-            upgrades.add(getStream("2007-06-to-2008-09.xsl"));
+            List<String> upgrades = new ArrayList<String>();
+            upgrades.add("2007-06-to-2008-09.xsl");
             upgraded = applyTransforms(transformed, upgrades);
             //validate the file
             validate(upgraded);
@@ -1235,8 +1356,8 @@ public class ExporterTest extends AbstractServerTest {
 
     class Target {
 
-        /** The transforms to apply.*/
-        private List<InputStream> transforms;
+        /** The names of the stylesheets to apply.*/
+        private List<String> transforms;
 
         /** The source schema.*/
         private String source;
@@ -1244,21 +1365,21 @@ public class ExporterTest extends AbstractServerTest {
         /**
          * Creates a new instance.
          *
-         * @param transforms The transforms to apply.
+         * @param transforms The names of the stylesheets to apply.
          * @param source The source schema.
          */
-        Target(List<InputStream> transforms, String source)
+        Target(List<String> transforms, String source)
         {
             this.transforms = transforms;
             this.source = source;
         }
 
         /**
-         * Returns the transforms to apply.
+         * Returns the names of the stylesheets to apply.
          *
          * @return See above.
          */
-        List<InputStream> getTransforms() { return transforms; }
+        List<String> getTransforms() { return transforms; }
 
         /**
          * Returns the source schema.
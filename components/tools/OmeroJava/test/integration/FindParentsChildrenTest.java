@@ -20,7 +20,9 @@ package integration;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.testng.Assert;
@@ -28,6 +30,8 @@ import org.testng.annotations.AfterClass;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
+import com.google.common.collect.Lists;
+
 import omero.ServerError;
 import omero.cmd.FindChildren;
 import omero.cmd.FindParents;
@@ -660,6 +664,39 @@ public class FindParentsChildrenTest extends AbstractServerTest {
         Assert.assertTrue(found.children.isEmpty());
     }
 
+    /**
+     * Walk from datasets down to ROIs one level at a time, finding the children of only a bounded batch of targets with each
+     * request, as a client would to keep its memory bounded on a very large hierarchy.
+     * The ROIs found must be those found by a single request from the datasets.
+     * @throws Exception unexpected
+     */
+    @Test
+    public void testFindRoisInDatasetsInBatches() throws Exception {
+        final int batchSize = 1;
+        final List<Long> datasetIds = new ArrayList<Long>();
+        for (final Dataset dataset : datasets) {
+            datasetIds.add(dataset.getId().getValue());
+        }
+        final Set<Long> imageIds = new HashSet<Long>();
+        for (final List<Long> batch : Lists.partition(datasetIds, batchSize)) {
+            final FindChildren finder = Requests.findChildren().target("Dataset").id(batch).childType("Image").build();
+            final FoundChildren found = (FoundChildren) doChange(finder);
+            imageIds.addAll(found.children.get(ome.model.core.Image.class.getName()));
+        }
+        final Set<Long> roiIds = new HashSet<Long>();
+        for (final List<Long> batch : Lists.partition(new ArrayList<Long>(imageIds), batchSize)) {
+            final FindChildren finder = Requests.findChildren().target("Image").id(batch).childType("Roi").build();
+            final FoundChildren found = (FoundChildren) doChange(finder);
+            roiIds.addAll(found.children.get(ome.model.roi.Roi.class.getName()));
+        }
+        final FindChildren finder = Requests.findChildren().target(datasets.get(0), datasets.get(1)).childType("Roi").build();
+        final FoundChildren found = (FoundChildren) doChange(finder);
+        final List<Long> foundRois = found.children.remove(ome.model.roi.Roi.class.getName());
+        Assert.assertNotNull(foundRois);
+        Assert.assertTrue(CollectionUtils.isEqualCollection(foundRois, roiIds));
+        Assert.assertEquals(roiIds.size(), rois.size());
+    }
+
     /**
      * Do not specify which types of image container to find.
      * The search should fail.
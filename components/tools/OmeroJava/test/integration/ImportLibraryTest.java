@@ -20,6 +20,8 @@
 package integration;
 
 import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -34,14 +36,19 @@ import ome.formats.importer.ImportConfig;
 import ome.formats.importer.ImportContainer;
 import ome.formats.importer.ImportLibrary;
 import ome.formats.importer.OMEROWrapper;
+import ome.formats.importer.transfers.SymlinkFileTransfer;
 import ome.services.blitz.repo.path.ClientFilePathTransformer;
 import ome.services.blitz.util.ChecksumAlgorithmMapper;
 import ome.util.checksum.ChecksumProvider;
 import ome.util.checksum.ChecksumProviderFactoryImpl;
+import omero.RLong;
+import omero.RString;
+import omero.RType;
 import omero.ServerError;
 import omero.api.RawFileStorePrx;
 import omero.cmd.CmdCallbackI;
 import omero.cmd.HandlePrx;
+import omero.gateway.util.Requests;
 import omero.grid.ImportProcessPrx;
 import omero.grid.ImportSettings;
 import omero.grid.ManagedRepositoryPrx;
@@ -52,12 +59,15 @@ import omero.model.Dataset;
 import omero.model.DatasetImageLink;
 import omero.model.Fileset;
 import omero.model.FilesetI;
+import omero.model.OriginalFile;
 import omero.model.Pixels;
 import omero.model.enums.ChecksumAlgorithmMurmur3128;
+import omero.sys.EventContext;
 import omero.sys.ParametersI;
 
 import org.apache.commons.lang.ArrayUtils;
 import org.testng.Assert;
+import org.testng.SkipException;
 import org.testng.annotations.AfterClass;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
@@ -75,6 +85,32 @@ import com.google.common.collect.ImmutableMap;
 @Test(groups = { "import", "integration", "fs" })
 public class ImportLibraryTest extends AbstractServerImportTest {
 
+    /**
+     * Creates a temporary directory of empty multi-series fake image files,
+     * each of which is imported as a separate fileset.
+     *
+     * @param name
+     *            The prefix of the directory name.
+     * @param filesetCount
+     *            The number of fake image files to create.
+     * @param seriesCount
+     *            The number of series in each fake image file.
+     * @return the new directory
+     * @throws Exception
+     *             Thrown if an error occurred.
+     */
+    private File createFakeImageDirectory(String name, int filesetCount, int seriesCount)
+            throws Exception {
+        final File directory = Files.createTempDirectory(name).toFile();
+        directory.deleteOnExit();
+        for (int i = 0; i < filesetCount; i++) {
+            final File imageFile = new File(directory, String.format("fileset%d&series=%d.fake", i, seriesCount));
+            Assert.assertTrue(imageFile.createNewFile());
+            imageFile.deleteOnExit();
+        }
+        return directory;
+    }
+
     /**
      * Tests the <code>ImportImage</code> method using an import container
      * returned by the import candidates method.
@@ -941,4 +977,86 @@ public class ImportLibraryTest extends AbstractServerImportTest {
         dataset = (Dataset) iQuery.get("Dataset", datasetId);
         Assert.assertEquals(dataset.getDescription().getValue(), newDescription);
     }
+
+    /**
+     * Test that multi-series filesets are all imported when their import and
+     * upload are fanned out over bounded thread pools.
+     * @throws Throwable unexpected
+     */
+    @Test
+    public void testImportCandidatesInParallel() throws Throwable {
+        final int filesetCount = 3;
+        final int seriesCount = 4;
+        final EventContext ec = newUserAndGroup("rw----");
+        final File directory = createFakeImageDirectory("testImportCandidatesInParallel", filesetCount, seriesCount);
+
+        /* import the filesets concurrently */
+        final ImportConfig config = new ImportConfig();
+        config.parallelFileset.set(filesetCount);
+        config.parallelUpload.set(filesetCount);
+        final ImportLibrary library = new ImportLibrary(createImporter(), new OMEROWrapper(config));
+        Assert.assertTrue(library.importCandidates(config, getCandidates(directory)));
+
+        /* check that every series of every fileset was imported */
+        final String hql = "SELECT COUNT(*) FROM Image WHERE details.owner.id = :id";
+        final List<List<RType>> results = iQuery.projection(hql, new ParametersI().addId(ec.userId));
+        Assert.assertEquals(((RLong) results.get(0).get(0)).getValue(), filesetCount * seriesCount);
+    }
+
+    /**
+     * Test that filesets can be imported in place, their files being
+     * symlinked into the managed repository rather than uploaded, with the
+     * filesets transferred concurrently.
+     * @throws Throwable unexpected
+     */
+    @Test
+    public void testImportCandidatesInPlace() throws Throwable {
+        final int filesetCount = 3;
+        final int seriesCount = 2;
+        final EventContext ec = newUserAndGroup("rw----");
+
+        /* in-place transfer requires the client to see the managed repository */
+        final OriginalFile repositoryRoot = getManagedRepository().root();
+        final File repositoryDirectory =
+                new File(repositoryRoot.getPath().getValue(), repositoryRoot.getName().getValue());
+        if (!(repositoryDirectory.isDirectory() && repositoryDirectory.canWrite())) {
+            throw new SkipException("managed repository is not writable from this client");
+        }
+        final File directory = createFakeImageDirectory("testImportCandidatesInPlace", filesetCount, seriesCount);
+
+        try {
+            /* import the filesets concurrently by symlinking their files */
+            final ImportConfig config = new ImportConfig();
+            config.parallelFileset.set(filesetCount);
+            final ImportLibrary library =
+                    new ImportLibrary(createImporter(), new OMEROWrapper(config), new SymlinkFileTransfer());
+            Assert.assertTrue(library.importCandidates(config, getCandidates(directory)));
+
+            /* check that every series was imported */
+            String hql = "SELECT COUNT(*) FROM Image WHERE details.owner.id = :id";
+            List<List<RType>> results = iQuery.projection(hql, new ParametersI().addId(ec.userId));
+            Assert.assertEquals(((RLong) results.get(0).get(0)).getValue(), filesetCount * seriesCount);
+
+            /* check that the repository holds links to the original files */
+            hql = "SELECT originalFile.path, originalFile.name FROM FilesetEntry WHERE fileset.details.owner.id = :id";
+            results = iQuery.projection(hql, new ParametersI().addId(ec.userId));
+            Assert.assertEquals(results.size(), filesetCount);
+            for (final List<RType> result : results) {
+                final String path = ((RString) result.get(0)).getValue();
+                final String name = ((RString) result.get(1)).getValue();
+                Assert.assertTrue(Files.isSymbolicLink(new File(new File(repositoryDirectory, path), name).toPath()));
+            }
+        } finally {
+            /* delete the imported filesets, hence their links in the repository, before their source files */
+            final List<Long> filesetIds = new ArrayList<Long>(queryIds(
+                    "SELECT id FROM Fileset WHERE details.owner.id = :id", new ParametersI().addId(ec.userId)));
+            if (!filesetIds.isEmpty()) {
+                doChange(Requests.delete().target("Fileset").id(filesetIds).build());
+            }
+            for (final File file : directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
 }
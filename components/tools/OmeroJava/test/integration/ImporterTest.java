@@ -22,6 +22,8 @@ import ome.specification.XMLMockObjects;
 import ome.specification.XMLWriter;
 import ome.xml.model.OME;
 import ome.xml.model.primitives.Color;
+import omero.RLong;
+import omero.RType;
 import omero.api.IAdminPrx;
 import omero.api.IRoiPrx;
 import omero.api.RoiOptions;
@@ -1149,6 +1151,41 @@ public class ImporterTest extends AbstractServerTest {
         validatePlate(plate, ome.getPlate(0));
     }
 
+    /**
+     * Tests the import of a plate whose wells hold many samples, each sample
+     * being a separate image. The whole plate is one fileset so its metadata
+     * is persisted by a single import.
+     *
+     * @throws Exception
+     *             Thrown if an error occurred.
+     */
+    @Test
+    public void testImportPlateManyWellSamples() throws Exception {
+        final int rows = 8;
+        final int columns = 12;
+        final int fields = 2;
+        File f = File.createTempFile("testImportPlateManyWellSamples",
+                String.format("&plates=1&plateRows=%d&plateCols=%d&fields=%d&sizeX=8&sizeY=8.fake",
+                        rows, columns, fields));
+        f.deleteOnExit();
+        List<Pixels> pixels = null;
+        try {
+            pixels = importFile(f, "fake");
+        } catch (Throwable e) {
+            throw new Exception("cannot import the plate", e);
+        }
+        Assert.assertEquals(pixels.size(), rows * columns * fields);
+        Plate plate = getWellSample(pixels.get(0)).getWell().getPlate();
+        ParametersI param = new ParametersI();
+        param.addId(plate.getId().getValue());
+        String sql = "select count(*) from Well where plate.id = :id";
+        List<List<RType>> results = iQuery.projection(sql, param);
+        Assert.assertEquals(((RLong) results.get(0).get(0)).getValue(), rows * columns);
+        sql = "select count(*) from WellSample where well.plate.id = :id";
+        results = iQuery.projection(sql, param);
+        Assert.assertEquals(((RLong) results.get(0).get(0)).getValue(), rows * columns * fields);
+    }
+
     /**
      * Tests the import of an OME-XML file with a screen and a fully populated
      * plate.
@@ -19,7 +19,10 @@
 package integration;
 
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import omero.ServerError;
@@ -27,8 +30,11 @@ import omero.api.IQueryPrx;
 import omero.api.IUpdatePrx;
 import omero.model.ExperimenterGroup;
 import omero.model.ExperimenterGroupI;
+import omero.model.Image;
 import omero.model.MapAnnotation;
+import omero.model.MapAnnotationI;
 import omero.model.NamedValue;
+import omero.sys.ParametersI;
 
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -103,6 +109,50 @@ public class MapAnnotationTest extends AbstractServerTest {
         Assert.assertEquals("", group.getConfig().get(0).value);
     }
 
+    /**
+     * Test that images may be filtered by the values that their map
+     * annotations give for more than one key, matching one by prefix and the
+     * other exactly, in a single query.
+     * @throws Exception unexpected
+     */
+    @Test
+    public void testFilterImagesByMapValues() throws Exception {
+        newUserAndGroup("rw----");
+        final String geneKey = "gene " + UUID.randomUUID();
+        final String treatmentKey = "treatment " + UUID.randomUUID();
+        final String[][] values = {
+                {"CDK1", "DMSO"}, {"CDK1", "nocodazole"}, {"CDK2", "DMSO"}, {"PLK1", "DMSO"}};
+        final List<Long> imageIds = new ArrayList<Long>();
+        for (final String[] value : values) {
+            final Image image = (Image) iUpdate.saveAndReturnObject(mmFactory.simpleImage());
+            MapAnnotation annotation = new MapAnnotationI();
+            annotation.setMapValue(new ArrayList<NamedValue>());
+            annotation.getMapValue().add(new NamedValue(geneKey, value[0]));
+            annotation.getMapValue().add(new NamedValue(treatmentKey, value[1]));
+            annotation = (MapAnnotation) iUpdate.saveAndReturnObject(annotation);
+            linkParentToChild(image, annotation);
+            imageIds.add(image.getId().getValue());
+        }
+        final String hql = "SELECT DISTINCT link.parent.id FROM ImageAnnotationLink link " +
+                "WHERE link.child.id IN " +
+                "(SELECT a.id FROM MapAnnotation a JOIN a.mapValue gene JOIN a.mapValue treatment " +
+                "WHERE gene.name = :gene_key AND gene.value LIKE :gene_value " +
+                "AND treatment.name = :treatment_key AND treatment.value = :treatment_value)";
+        final ParametersI params = new ParametersI();
+        params.add("gene_key", omero.rtypes.rstring(geneKey));
+        params.add("treatment_key", omero.rtypes.rstring(treatmentKey));
+        params.add("treatment_value", omero.rtypes.rstring("DMSO"));
+
+        params.add("gene_value", omero.rtypes.rstring("CDK1"));
+        Assert.assertEquals(queryIds(hql, params), new HashSet<Long>(imageIds.subList(0, 1)));
+
+        params.add("gene_value", omero.rtypes.rstring("CDK%"));
+        final Set<Long> expected = new HashSet<Long>();
+        expected.add(imageIds.get(0));
+        expected.add(imageIds.get(2));
+        Assert.assertEquals(queryIds(hql, params), expected);
+    }
+
     @Test
     public void testMapGetters() throws Exception {
         ExperimenterGroup group = new ExperimenterGroupI();
@@ -8,6 +8,7 @@ package integration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -352,6 +353,55 @@ public class MetadataServiceTest extends AbstractServerTest {
         }
     }
 
+    /**
+     * Tests to load the annotations of many images with a single
+     * <code>loadAnnotations</code> call rather than one call per image, and
+     * checks the result against the number of links of each image counted
+     * with a single grouped query.
+     *
+     * @throws Exception
+     *             Thrown if an error occurred.
+     */
+    @Test
+    public void testLoadAnnotationsForManyImages() throws Exception {
+        final int imageCount = 10;
+        TagAnnotation shared = (TagAnnotation) iUpdate.saveAndReturnObject(
+                new TagAnnotationI());
+        List<IObject> images = new ArrayList<IObject>();
+        for (int i = 0; i < imageCount; i++) {
+            images.add(mmFactory.simpleImage());
+        }
+        images = iUpdate.saveAndReturnArray(images);
+        List<Long> nodes = new ArrayList<Long>();
+        Map<Long, Integer> expected = new HashMap<Long, Integer>();
+        for (int i = 0; i < images.size(); i++) {
+            List<Annotation> annotations = new ArrayList<Annotation>();
+            annotations.add(shared);
+            for (int j = 0; j <= i % 3; j++) {
+                annotations.add(new CommentAnnotationI());
+            }
+            linkParentToChildren((Image) images.get(i), annotations);
+            long id = images.get(i).getId().getValue();
+            nodes.add(id);
+            expected.put(id, annotations.size());
+        }
+
+        Map<Long, List<IObject>> result = iMetadata.loadAnnotations(
+                Image.class.getName(), nodes, new ArrayList<String>(),
+                new ArrayList<Long>(), new Parameters());
+        Assert.assertNotNull(result);
+        Assert.assertEquals(result.size(), imageCount);
+
+        String hql = "SELECT parent.id, COUNT(id) FROM ImageAnnotationLink "
+                + "WHERE parent.id IN (:ids) GROUP BY parent.id";
+        Map<Long, Long> counts = countGrouped(hql,
+                new ParametersI().addIds(nodes));
+        for (Long id : nodes) {
+            Assert.assertEquals(result.get(id).size(), expected.get(id).intValue());
+            Assert.assertEquals(counts.get(id).intValue(), expected.get(id).intValue());
+        }
+    }
+
     /**
      * Tests the creation of file annotation with an original file and load it.
      * Loads the annotation using the <code>loadSpecifiedAnnotations</code>
@@ -528,6 +528,77 @@ public class PojosServiceTest extends AbstractServerTest {
         Assert.assertEquals(v.longValue(), 0);
     }
 
+    /**
+     * Tests that the number of children of many containers of different
+     * types can be found with one grouped query per type rather than one
+     * count per container, and that those counts match the ones returned by
+     * the collection count method.
+     *
+     * @throws Exception
+     *             Thrown if an error occurred.
+     */
+    @Test
+    public void testCollectionCountGroupedForManyContainers() throws Exception {
+        final int containerCount = 20;
+        List<IObject> containers = new ArrayList<IObject>();
+        for (int i = 0; i < containerCount; i++) {
+            containers.add(mmFactory.simpleProjectData().asIObject());
+            containers.add(mmFactory.simpleDatasetData().asIObject());
+        }
+        containers = iUpdate.saveAndReturnArray(containers);
+        List<Long> projectIds = new ArrayList<Long>();
+        List<Long> datasetIds = new ArrayList<Long>();
+        List<IObject> links = new ArrayList<IObject>();
+        for (int i = 0; i < containers.size(); i += 2) {
+            Project p = (Project) containers.get(i);
+            Dataset d = (Dataset) containers.get(i + 1);
+            projectIds.add(p.getId().getValue());
+            datasetIds.add(d.getId().getValue());
+            // give the containers different numbers of children
+            if (i % 4 == 0) {
+                ProjectDatasetLink link = new ProjectDatasetLinkI();
+                link.setParent((Project) p.proxy());
+                link.setChild((Dataset) d.proxy());
+                links.add(link);
+            }
+            for (int j = 0; j < i % 3; j++) {
+                DatasetImageLink link = new DatasetImageLinkI();
+                link.setParent((Dataset) d.proxy());
+                link.setChild(mmFactory.simpleImage());
+                links.add(link);
+            }
+        }
+        iUpdate.saveAndReturnArray(links);
+
+        Map<String, List<Long>> ids = new HashMap<String, List<Long>>();
+        ids.put("Project", projectIds);
+        ids.put("Dataset", datasetIds);
+        Map<String, String> linkClasses = new HashMap<String, String>();
+        linkClasses.put("Project", "ProjectDatasetLink");
+        linkClasses.put("Dataset", "DatasetImageLink");
+        Map<String, String> countFields = new HashMap<String, String>();
+        countFields.put("Project", ProjectData.DATASET_LINKS);
+        countFields.put("Dataset", DatasetData.IMAGE_LINKS);
+
+        for (Entry<String, List<Long>> e : ids.entrySet()) {
+            String type = e.getKey();
+            // one grouped query for all the containers of this type
+            String hql = "SELECT parent.id, COUNT(id) FROM "
+                    + linkClasses.get(type)
+                    + " WHERE parent.id IN (:ids) GROUP BY parent.id";
+            Map<Long, Long> grouped = countGrouped(hql,
+                    new ParametersI().addIds(e.getValue()));
+            Map m = factory.getContainerService().getCollectionCount(
+                    "omero.model." + type, countFields.get(type),
+                    e.getValue(), new ParametersI());
+            for (Long id : e.getValue()) {
+                Long expected = (Long) m.get(id);
+                Long actual = grouped.containsKey(id) ? grouped.get(id) : 0L;
+                Assert.assertEquals(actual, expected, type + ":" + id);
+            }
+        }
+    }
+
     /**
      * Tests the retrieval of images filtering by owners.
      *
@@ -1023,6 +1094,78 @@ public class PojosServiceTest extends AbstractServerTest {
         }
     }
 
+    /**
+     * Tests to browse a project as a tree view would: the datasets without
+     * their images, then the number of images of all the datasets in a
+     * single call, then the images of each dataset one page at a time.
+     *
+     * @throws Exception
+     *             Thrown if an error occurred.
+     */
+    @Test
+    public void testLoadContainerHierarchyProjectCountsAndPagedLeaves()
+            throws Exception {
+        final int datasetCount = 3;
+        final int pageSize = 2;
+        Project p = (Project) iUpdate.saveAndReturnObject(mmFactory
+                .simpleProjectData().asIObject());
+        Map<Long, Integer> expectedCounts = new HashMap<Long, Integer>();
+        for (int i = 0; i < datasetCount; i++) {
+            Dataset d = (Dataset) iUpdate.saveAndReturnObject(mmFactory
+                    .simpleDatasetData().asIObject());
+            linkParentToChild(p, d);
+            List<IObject> images = new ArrayList<IObject>();
+            for (int j = 0; j <= i * pageSize; j++) {
+                images.add(mmFactory.simpleImage());
+            }
+            linkParentToChildren(d, iUpdate.saveAndReturnArray(images));
+            expectedCounts.put(d.getId().getValue(), images.size());
+        }
+
+        // the datasets but not their images
+        ParametersI param = new ParametersI();
+        param.noLeaves();
+        List<IObject> results = factory.getContainerService()
+                .loadContainerHierarchy(Project.class.getName(),
+                        Collections.singletonList(p.getId().getValue()), param);
+        Assert.assertEquals(results.size(), 1);
+        Set<DatasetData> datasets = new ProjectData((Project) results.get(0))
+                .getDatasets();
+        Assert.assertEquals(datasets.size(), datasetCount);
+        List<Long> ids = new ArrayList<Long>();
+        for (DatasetData dataset : datasets) {
+            Assert.assertNull(dataset.getImages());
+            ids.add(dataset.getId());
+        }
+
+        // the number of images of all the datasets
+        Map m = factory.getContainerService().getCollectionCount(
+                Dataset.class.getName(), DatasetData.IMAGE_LINKS, ids,
+                new ParametersI());
+        for (Long id : ids) {
+            Long v = (Long) m.get(id);
+            Assert.assertEquals(v.intValue(), expectedCounts.get(id).intValue());
+        }
+
+        // the images of each dataset, one page at a time
+        for (Long id : ids) {
+            Set<Long> imageIds = new HashSet<Long>();
+            int offset = 0;
+            List<Image> page;
+            do {
+                page = factory.getContainerService().getImages(
+                        Dataset.class.getName(), Collections.singletonList(id),
+                        new ParametersI().page(offset, pageSize));
+                Assert.assertTrue(page.size() <= pageSize);
+                for (Image img : page) {
+                    imageIds.add(img.getId().getValue());
+                }
+                offset += pageSize;
+            } while (page.size() == pageSize);
+            Assert.assertEquals(imageIds.size(), expectedCounts.get(id).intValue());
+        }
+    }
+
     /**
      * Test to load an image with its acquisition data. This method invoked the
      * <code>getImages</code>.
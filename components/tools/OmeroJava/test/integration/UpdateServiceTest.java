@@ -13,6 +13,7 @@ import java.util.Set;
 import java.util.UUID;
 
 import ome.services.scripts.ScriptRepoHelper;
+import omero.RLong;
 import omero.ServerError;
 import omero.ValidationException;
 import omero.api.IQueryPrx;
@@ -36,6 +37,7 @@ import omero.model.DatasetImageLinkI;
 import omero.model.Detector;
 import omero.model.Dichroic;
 import omero.model.EllipseI;
+import omero.model.ExperimenterGroup;
 import omero.model.ExternalInfo;
 import omero.model.ExternalInfoI;
 import omero.model.FileAnnotation;
@@ -100,6 +102,7 @@ import omero.model.TermAnnotation;
 import omero.model.TermAnnotationI;
 import omero.model.XmlAnnotation;
 import omero.model.XmlAnnotationI;
+import omero.sys.EventContext;
 import omero.sys.Parameters;
 import omero.sys.ParametersI;
 
@@ -211,6 +214,52 @@ public class UpdateServiceTest extends AbstractServerTest {
         Assert.assertEquals(id, test.getDetails().getUpdateEvent().getId().getValue());
     }
 
+    /**
+     * Test that repeating the same projection with the same parameters, as a
+     * dashboard would, reflects every update in between and is specific to
+     * the group of the caller.
+     *
+     * @throws Exception
+     *             Thrown if an error occurred.
+     */
+    @Test
+    public void testRepeatedProjectionReflectsUpdates() throws Exception {
+        final EventContext ctx = newUserAndGroup("rw----");
+        final String hql = "SELECT COUNT(*) FROM Dataset WHERE details.owner.id = :id";
+        final Parameters params = new ParametersI().addId(ctx.userId);
+        Assert.assertEquals(count(hql, params), 0);
+
+        final Dataset dataset = (Dataset) iUpdate.saveAndReturnObject(
+                mmFactory.simpleDataset());
+        Assert.assertEquals(count(hql, params), 1);
+        iUpdate.saveAndReturnObject(mmFactory.simpleDataset());
+        Assert.assertEquals(count(hql, params), 2);
+
+        final Delete2 dc = Requests.delete().target(dataset).build();
+        callback(true, client, dc);
+        Assert.assertEquals(count(hql, params), 1);
+
+        /* the same query in another group of the user */
+        final ExperimenterGroup group = newGroupAddUser("rw----", ctx.userId);
+        loginUser(group);
+        Assert.assertEquals(count(hql, params), 0);
+    }
+
+    /**
+     * Returns the count given by the specified projection.
+     *
+     * @param hql
+     *            The query counting the objects.
+     * @param params
+     *            The parameters of the query.
+     * @return See above.
+     * @throws ServerError
+     *             Thrown if an error occurred.
+     */
+    private long count(String hql, Parameters params) throws ServerError {
+        return ((RLong) iQuery.projection(hql, params).get(0).get(0)).getValue();
+    }
+
     /**
      * Tests the creation of a project without datasets.
      *
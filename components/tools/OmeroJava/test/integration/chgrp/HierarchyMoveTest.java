@@ -13,6 +13,8 @@ import java.util.UUID;
 
 import omero.cmd.Chgrp2;
 import omero.cmd.Chgrp2Response;
+import omero.cmd.CmdCallbackI;
+import omero.cmd.HandlePrx;
 import omero.gateway.util.Requests;
 import omero.gateway.util.Requests.Chgrp2Builder;
 import omero.grid.Column;
@@ -69,6 +71,7 @@ import org.testng.Assert;
 import org.testng.annotations.Test;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 
 import omero.gateway.model.FileAnnotationData;
 
@@ -924,6 +927,55 @@ public class HierarchyMoveTest extends AbstractServerTest {
         Assert.assertNotNull(iQuery.findByQuery(sql, param));
     }
 
+    /**
+     * Tests to move images by partitioning them into disjoint sets, each
+     * moved by its own request, with the requests running concurrently.
+     *
+     * @throws Exception
+     *             Thrown if an error occurred.
+     */
+    @Test
+    public void testMoveImagesInConcurrentRequests() throws Exception {
+        final int partitions = 4;
+        final int imagesPerPartition = 3;
+        String perms = "rw----";
+        EventContext ctx = newUserAndGroup(perms);
+        ExperimenterGroup g = newGroupAddUser(perms, ctx.userId);
+        iAdmin.getEventContext(); // Refresh
+
+        List<IObject> images = new ArrayList<IObject>();
+        for (int i = 0; i < partitions * imagesPerPartition; i++) {
+            images.add(mmFactory.simpleImage());
+        }
+        images = iUpdate.saveAndReturnArray(images);
+        List<Long> ids = new ArrayList<Long>();
+        for (IObject image : images) {
+            ids.add(image.getId().getValue());
+        }
+
+        /* submit all the requests before waiting on any of them */
+        List<CmdCallbackI> callbacks = new ArrayList<CmdCallbackI>();
+        for (List<Long> partition : Lists.partition(ids, imagesPerPartition)) {
+            final Chgrp2 dc = Requests.chgrp().target("Image")
+                    .id(new ArrayList<Long>(partition)).toGroup(g).build();
+            HandlePrx handle = client.getSession().submit(dc);
+            callbacks.add(new CmdCallbackI(client, handle));
+        }
+        for (CmdCallbackI cb : callbacks) {
+            cb.loop(10, scalingFactor);
+            assertCmd(cb, true);
+        }
+
+        ParametersI param = new ParametersI();
+        param.addIds(ids);
+        String sql = "select i from Image as i where i.id in (:ids)";
+        Assert.assertEquals(iQuery.findAllByQuery(sql, param).size(), 0);
+
+        loginUser(g);
+        Assert.assertEquals(iQuery.findAllByQuery(sql, param).size(),
+                ids.size());
+    }
+
     /**
      * Tests to move a screen containing a plate also contained in another
      * screen. The screen should be moved but not the plate.
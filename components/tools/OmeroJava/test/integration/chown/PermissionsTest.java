@@ -20,6 +20,7 @@
 package integration.chown;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -138,9 +139,8 @@ public class PermissionsTest extends AbstractServerTest {
 
         final List<IObject> annotationObjects = new ArrayList<IObject>();
 
-        for (final Annotation annotation : new Annotation[] {new CommentAnnotationI(),
-             new TagAnnotationI(), new FileAnnotationI(), new MapAnnotationI()}) {
-            final ImageAnnotationLink link = linkParentToChild(image, annotation);
+        for (final ImageAnnotationLink link : linkParentToChildren(image, Arrays.<Annotation>asList(new CommentAnnotationI(),
+             new TagAnnotationI(), new FileAnnotationI(), new MapAnnotationI()))) {
             annotationObjects.add(link.proxy());
             annotationObjects.add(link.getChild().proxy());
         }
@@ -1557,10 +1557,7 @@ public class PermissionsTest extends AbstractServerTest {
         final Dataset dataset = (Dataset) iUpdate.saveAndReturnObject(mmFactory.simpleDataset()).proxy();
         final long datasetId = dataset.getId().getValue();
 
-        final List<DatasetImageLink> links = new ArrayList<DatasetImageLink>(images.size());
-        for (final IObject image : images) {
-            links.add(linkParentToChild(dataset, (Image) image));
-        }
+        final List<DatasetImageLink> links = linkParentToChildren(dataset, images);
 
         /* check that the objects' ownership is all as expected */
 
@@ -12,6 +12,8 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -27,6 +29,7 @@ import omero.api.IQueryPrx;
 import omero.api.IUpdatePrx;
 import omero.api.ServiceFactoryPrx;
 import omero.cmd.Delete2;
+import omero.cmd.Delete2Response;
 import omero.cmd.graphs.ChildOption;
 import omero.gateway.util.Requests;
 import omero.model.Annotation;
@@ -248,6 +251,151 @@ public class HierarchyDeleteTest extends AbstractServerTest {
         assertExists(d);
     }
 
+    /**
+     * Test that a dry run of deleting a project reports the number of objects
+     * of each class that would be deleted, without deleting them, and that
+     * the counts match those of the actual deletion.
+     *
+     * @throws Exception
+     *             Thrown if an error occurred.
+     */
+    @Test
+    public void testDryRunCountsMatchDelete() throws Exception {
+
+        newUserAndGroup("rw----");
+
+        final int imageCount = 3;
+        Project p = new ProjectI();
+        p.setName(rtypes.rstring("dry run"));
+        Dataset d = new DatasetI();
+        d.setName(rtypes.rstring("dry run"));
+        for (int i = 0; i < imageCount; i++) {
+            d.linkImage((Image) mmFactory.simpleImage());
+        }
+        p.linkDataset(d);
+        p = (Project) iUpdate.saveAndReturnObject(p);
+
+        final Delete2Response dryRun = singleDeleteWithReport(client,
+                Requests.delete().target(p).dryRun().build());
+        assertExists(p);
+
+        final String[] classes = new String[] {
+                ome.model.containers.Project.class.getName(),
+                ome.model.containers.Dataset.class.getName(),
+                ome.model.core.Image.class.getName()};
+        final int[] expected = new int[] {1, 1, imageCount};
+        for (int i = 0; i < classes.length; i++) {
+            final List<Long> ids = dryRun.deletedObjects.get(classes[i]);
+            Assert.assertNotNull(ids, classes[i]);
+            Assert.assertEquals(ids.size(), expected[i], classes[i]);
+        }
+
+        final Delete2Response delete = singleDeleteWithReport(client,
+                Requests.delete().target(p).build());
+        assertDoesNotExist(p);
+        for (final String className : classes) {
+            Assert.assertEquals(delete.deletedObjects.get(className).size(),
+                    dryRun.deletedObjects.get(className).size(), className);
+        }
+    }
+
+    /**
+     * Test to delete overlapping targets, an image, the dataset containing it
+     * and the project containing the dataset, with the commands combined into
+     * a single traversal.
+     *
+     * @throws Exception
+     *             Thrown if an error occurred.
+     */
+    @Test
+    public void testDeletingOverlappingTargetsMerged() throws Exception {
+
+        newUserAndGroup("rw----");
+
+        Project p = new ProjectI();
+        p.setName(t3031);
+        Dataset d = new DatasetI();
+        d.setName(t3031);
+        d.linkImage((Image) mmFactory.simpleImage());
+        d.linkImage((Image) mmFactory.simpleImage());
+        p.linkDataset(d);
+        p = (Project) iUpdate.saveAndReturnObject(p);
+        d = p.linkedDatasetList().get(0);
+        final List<Image> images = d.linkedImageList();
+
+        final Delete2[] commands = new Delete2[] {
+                Requests.delete().target(images.get(0)).build(),
+                Requests.delete().target(d).build(),
+                Requests.delete().target(p).build()};
+        final List<Delete2> merged = mergeDeletes(commands);
+        Assert.assertEquals(merged.size(), 1);
+        /* allow as long as for the commands that were combined */
+        doChange(client, factory, merged.get(0), true, null, commands.length);
+
+        assertDoesNotExist(p);
+        assertDoesNotExist(d);
+        assertNoneExist(images);
+    }
+
+    /**
+     * Combines the given delete commands into as few commands as possible so
+     * that the server traverses the graph once rather than once per command.
+     * Only adjacent plain commands, that just name their targets, are
+     * combined. The others, e.g. with child options, types to ignore or as a
+     * dry run, are returned unchanged. The order of the commands and of their
+     * targets is preserved.
+     *
+     * @param dc
+     *            The commands to combine.
+     * @return The combined commands.
+     */
+    private static List<Delete2> mergeDeletes(Delete2... dc) {
+        final List<Delete2> merged = new ArrayList<Delete2>();
+        Map<String, Set<Long>> targets = null;
+        for (Delete2 request : dc) {
+            if (request.dryRun || CollectionUtils.isNotEmpty(request.childOptions)
+                    || CollectionUtils.isNotEmpty(request.typesToIgnore)) {
+                if (targets != null) {
+                    merged.add(combineDeletes(targets));
+                    targets = null;
+                }
+                merged.add(request);
+                continue;
+            }
+            if (targets == null) {
+                targets = new LinkedHashMap<String, Set<Long>>();
+            }
+            for (Map.Entry<String, List<Long>> e : request.targetObjects.entrySet()) {
+                Set<Long> ids = targets.get(e.getKey());
+                if (ids == null) {
+                    ids = new LinkedHashSet<Long>();
+                    targets.put(e.getKey(), ids);
+                }
+                ids.addAll(e.getValue());
+            }
+        }
+        if (targets != null) {
+            merged.add(combineDeletes(targets));
+        }
+        return merged;
+    }
+
+    /**
+     * Creates a plain delete command for the given targets.
+     *
+     * @param targets
+     *            The IDs of the objects to delete, by class.
+     * @return The delete command.
+     */
+    private static Delete2 combineDeletes(Map<String, Set<Long>> targets) {
+        final Delete2 request = new Delete2();
+        request.targetObjects = new LinkedHashMap<String, List<Long>>();
+        for (Map.Entry<String, Set<Long>> e : targets.entrySet()) {
+            request.targetObjects.put(e.getKey(), new ArrayList<Long>(e.getValue()));
+        }
+        return request;
+    }
+
     /**
      * Test to delete a screen containing a plate also contained in another
      * screen. The second screen and the plate should not be deleted.
@@ -9,7 +9,9 @@ import integration.AbstractServerTest;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import ome.specification.XMLMockObjects;
 import ome.specification.XMLWriter;
@@ -21,6 +23,7 @@ import omero.model.Experiment;
 import omero.model.Pixels;
 import omero.model.Plate;
 import omero.model.Screen;
+import omero.model.Well;
 import omero.model.WellSample;
 
 import org.testng.annotations.Test;
@@ -105,6 +108,92 @@ public class SpwDeleteTest extends AbstractServerTest {
 
     }
 
+    /**
+     * Tests to delete a screen with several plates in a single request and
+     * checks that the whole hierarchy below it is deleted.
+     *
+     * @throws Exception
+     *             Thrown if an error occurred.
+     */
+    public void testScreenManyPlates() throws Exception {
+
+        newUserAndGroup("rw----");
+
+        List<Pixels> pixels = create(new Creator() {
+            public OME create(XMLMockObjects xml) {
+                return xml.createPopulatedScreen(4, 2, 2, 2, 1);
+            }
+        });
+
+        Screen screen = null;
+        Set<Long> plateIds = new HashSet<Long>();
+        Set<Long> wellIds = new HashSet<Long>();
+        Set<Long> sampleIds = new HashSet<Long>();
+        for (Pixels p : pixels) {
+            WellSample ws = getWellSample(p);
+            Well well = ws.getWell();
+            Plate plate = well.getPlate();
+            if (screen == null) {
+                screen = plate.copyScreenLinks().get(0).getParent();
+            }
+            sampleIds.add(ws.getId().getValue());
+            wellIds.add(well.getId().getValue());
+            plateIds.add(plate.getId().getValue());
+        }
+        Assert.assertEquals(plateIds.size(), 4);
+
+        // In order to avoid omero.LockTimeout allow for the four plates
+        // being deleted together, for this test only
+        final long originalScalingFactor = scalingFactor;
+        scalingFactor *= plateIds.size();
+        try {
+            final Delete2 dc = Requests.delete().target(screen).build();
+            callback(true, client, dc);
+        } finally {
+            scalingFactor = originalScalingFactor;
+        }
+
+        assertDoesNotExist(screen);
+        assertNoneExist(Plate.class.getSimpleName(), plateIds);
+        assertNoneExist(Well.class.getSimpleName(), wellIds);
+        assertNoneExist(WellSample.class.getSimpleName(), sampleIds);
+        assertNoneExist(pixels.toArray(new Pixels[0]));
+    }
+
+    /**
+     * Tests to delete several plates by targeting all of them in a single
+     * request rather than sending one request per plate.
+     *
+     * @throws Exception
+     *             Thrown if an error occurred.
+     */
+    public void testPlatesInOneRequest() throws Exception {
+
+        newUserAndGroup("rw----");
+
+        List<Pixels> pixels = create(new Creator() {
+            public OME create(XMLMockObjects xml) {
+                return xml.createPopulatedScreen(3, 2, 2, 1, 1);
+            }
+        });
+
+        Set<Long> plateIds = new HashSet<Long>();
+        Set<Long> sampleIds = new HashSet<Long>();
+        for (Pixels p : pixels) {
+            WellSample ws = getWellSample(p);
+            sampleIds.add(ws.getId().getValue());
+            plateIds.add(ws.getWell().getPlate().getId().getValue());
+        }
+        Assert.assertEquals(plateIds.size(), 3);
+
+        final Delete2 dc = Requests.delete().target("Plate").id(new ArrayList<Long>(plateIds)).build();
+        callback(true, client, dc);
+
+        assertNoneExist(Plate.class.getSimpleName(), plateIds);
+        assertNoneExist(WellSample.class.getSimpleName(), sampleIds);
+        assertNoneExist(pixels.toArray(new Pixels[0]));
+    }
+
     @Test(groups = {"ticket12601", "ticket:3890"})
     public void testImportMultiplePlates() throws Exception {
         create(new Creator() {
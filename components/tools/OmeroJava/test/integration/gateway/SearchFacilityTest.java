@@ -22,9 +22,12 @@
 package integration.gateway;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 
 import omero.ServerError;
 import omero.api.IUpdatePrx;
@@ -32,6 +35,7 @@ import omero.gateway.SecurityContext;
 import omero.gateway.exception.DSAccessException;
 import omero.gateway.exception.DSOutOfServiceException;
 import omero.gateway.model.SearchParameters;
+import omero.gateway.model.SearchResult;
 import omero.gateway.model.SearchResultCollection;
 import omero.gateway.model.SearchScope;
 
@@ -134,6 +138,73 @@ public class SearchFacilityTest extends GatewayTest {
 
     }
 
+    /**
+     * Test that the hits of one search across several types may be counted
+     * by type, giving the same counts as searching each type separately.
+     * @throws Exception Thrown if an error occurred.
+     */
+    @Test
+    public void testSearchCountsByType() throws Exception {
+        final String term = "facet" + UUID.randomUUID().toString().replace("-", "");
+        final Map<Class<? extends DataObject>, Integer> expected =
+                new HashMap<Class<? extends DataObject>, Integer>();
+        expected.put(ProjectData.class, 3);
+        expected.put(DatasetData.class, 2);
+        expected.put(ScreenData.class, 1);
+
+        final List<DataObject> objects = new ArrayList<DataObject>();
+        for (int i = 0; i < expected.get(ProjectData.class); i++) {
+            final ProjectData project = new ProjectData();
+            project.setName(UUID.randomUUID().toString());
+            project.setDescription(term);
+            objects.add(project);
+        }
+        for (int i = 0; i < expected.get(DatasetData.class); i++) {
+            final DatasetData dataset = new DatasetData();
+            dataset.setName(UUID.randomUUID().toString());
+            dataset.setDescription(term);
+            objects.add(dataset);
+        }
+        for (int i = 0; i < expected.get(ScreenData.class); i++) {
+            final ScreenData screen = new ScreenData();
+            screen.setName(UUID.randomUUID().toString());
+            screen.setDescription(term);
+            objects.add(screen);
+        }
+        final IUpdatePrx iUpdate = gw.getUpdateService(rootCtx);
+        for (final DataObject obj : objects) {
+            iUpdate.indexObject(datamanagerFacility.saveAndReturnObject(ctx, obj).asIObject());
+        }
+
+        final Set<SearchScope> scope = new HashSet<SearchScope>();
+        scope.add(SearchScope.DESCRIPTION);
+        final List<Class<? extends DataObject>> types = new ArrayList<Class<? extends DataObject>>();
+        types.add(ProjectData.class);
+        types.add(DatasetData.class);
+        types.add(ScreenData.class);
+        types.add(PlateData.class);
+
+        /* count the hits of a single search by type */
+        final Map<Class<? extends DataObject>, Integer> counts =
+                new HashMap<Class<? extends DataObject>, Integer>();
+        for (final SearchResult result : searchFacility.search(ctx,
+                new SearchParameters(scope, types, term))) {
+            final Integer count = counts.get(result.getType());
+            counts.put(result.getType(), count == null ? 1 : count + 1);
+        }
+        Assert.assertEquals(counts, expected);
+
+        /* searching each type separately gives the same counts */
+        for (final Class<? extends DataObject> type : types) {
+            final List<Class<? extends DataObject>> oneType = new ArrayList<Class<? extends DataObject>>();
+            oneType.add(type);
+            final SearchResultCollection results = searchFacility.search(ctx,
+                    new SearchParameters(scope, oneType, term));
+            final Integer count = expected.get(type);
+            Assert.assertEquals(results.size(), count == null ? 0 : count.intValue());
+        }
+    }
+
     private void initData() throws Exception {
         this.group = createGroup();
         this.user = createExperimenter(group);
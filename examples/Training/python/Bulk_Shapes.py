@@ -15,7 +15,7 @@ from __future__ import print_function
 from builtins import range
 import omero
 from omero.gateway import BlitzGateway
-from omero.rtypes import rdouble
+from omero.rtypes import rdouble, unwrap
 from Parse_OMERO_Properties import USERNAME, PASSWORD, HOST, PORT
 
 """
@@ -50,28 +50,49 @@ roi = updateService.saveAndReturnObject(roi)
 print("created {} shapes".format(total_shape_count))
 
 
-# Query Shapes in batches
-# =======================
-shapes_per_batch = 5
-shapes_queried = 0
-shape_batch_count = 0
-
-hql = 'FROM Shape WHERE roi.id = :id ORDER BY id'
+# Query Point geometry in batches
+# ===============================
+# Each batch continues after the last ID of the previous batch rather than
+# skipping an ever larger offset, so every query reads only its own rows.
+# Only the coordinates and plane of each Point are projected, rather than
+# whole Shape objects with their details. Other shape types have their own
+# geometry fields, e.g. the points of a Polygon, so need their own query.
+# Each batch is used then dropped, here to grow a bounding box and to note
+# the planes used, so memory use does not grow with the number of points.
+points_per_batch = 5
+points_queried = 0
+point_batch_count = 0
+last_id = 0
+min_x = min_y = float('inf')
+max_x = max_y = float('-inf')
+planes = set()
+
+hql = ('SELECT p.id, p.x, p.y, p.theZ, p.theC, p.theT FROM Point p '
+       'WHERE p.roi.id = :id AND p.id > :last ORDER BY p.id')
 
 while True:
     params = omero.sys.ParametersI()
     params.addId(roi.id)
-    params.page(shapes_queried, shapes_per_batch)
-    shapes = queryService.findAllByQuery(hql, params)
+    params.addLong('last', last_id)
+    params.page(0, points_per_batch)
+    rows = unwrap(queryService.projection(hql, params))
 
-    if not shapes:
+    if not rows:
         break
     else:
-        shapes_queried += len(shapes)
-        shape_batch_count += 1
-
-print("retrieved {} shapes in {} batches".format(shapes_queried,
-                                                 shape_batch_count))
+        for point_id, x, y, z, c, t in rows:
+            min_x, max_x = min(min_x, x), max(max_x, x)
+            min_y, max_y = min(min_y, y), max(max_y, y)
+            planes.add((z, c, t))
+            last_id = point_id
+        points_queried += len(rows)
+        point_batch_count += 1
+
+print("retrieved {} points in {} batches".format(points_queried,
+                                                 point_batch_count))
+if points_queried:
+    print("bounding box from ({}, {}) to ({}, {}) on {} planes".format(
+        min_x, min_y, max_x, max_y, len(planes)))
 
 
 # Delete ROI with Shapes
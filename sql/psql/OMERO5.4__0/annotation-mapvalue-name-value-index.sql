@@ -0,0 +1,16 @@
+-- Adds an index on the key and value of each pair of map annotations so
+-- that annotations, hence the objects that they annotate, may be filtered
+-- quickly by an exact or prefix match of the value for a given key, e.g.
+--
+--     SELECT annotation_id FROM annotation_mapValue
+--      WHERE name = 'Gene' AND value LIKE 'CDK%';
+--
+-- The index is not part of the schema so may be added to any OMERO5.4__0
+-- database. It is built without locking out writes so this script may be
+-- run while OMERO.server is in use but it must not be run within a
+-- transaction.
+
+CREATE INDEX CONCURRENTLY annotation_mapValue_name_value
+    ON annotation_mapValue(name, value text_pattern_ops);
+
+ANALYZE annotation_mapValue;
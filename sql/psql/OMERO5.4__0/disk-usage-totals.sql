@@ -0,0 +1,127 @@
+-- Maintains the number and the total size of the original files of each
+-- owner and group so that quota reports can read them directly rather than
+-- summing over the whole originalfile table each time.
+--
+-- As files are added, deleted, resized or moved between owners and groups a
+-- trigger appends the change to _disk_usage_deltas. No row is updated in
+-- place so concurrent imports by the same user do not wait on each other.
+-- The view _disk_usage adds the outstanding changes to the rolled-up totals
+-- so it is always current, e.g. for a group,
+--
+--     SELECT owner_id, file_count, file_size FROM _disk_usage
+--      WHERE group_id = 3;
+--
+-- The changes should be folded into _disk_usage_totals periodically, e.g.
+-- from cron, to keep reads cheap:
+--
+--     SELECT _disk_usage_rollup();
+--
+-- The totals may be recomputed from the originalfile table at any time by
+--
+--     SELECT _disk_usage_recount();
+--
+-- Neither function blocks the addition of files while it runs.
+
+BEGIN;
+
+CREATE TABLE _disk_usage_totals (
+    owner_id BIGINT NOT NULL,
+    group_id BIGINT NOT NULL,
+    file_count BIGINT NOT NULL DEFAULT 0,
+    file_size BIGINT NOT NULL DEFAULT 0,
+    PRIMARY KEY (owner_id, group_id));
+
+CREATE TABLE _disk_usage_deltas (
+    owner_id BIGINT NOT NULL,
+    group_id BIGINT NOT NULL,
+    file_count BIGINT NOT NULL,
+    file_size BIGINT NOT NULL);
+
+CREATE VIEW _disk_usage AS
+    SELECT owner_id, group_id,
+           SUM(file_count) AS file_count, SUM(file_size) AS file_size
+      FROM (SELECT owner_id, group_id, file_count, file_size FROM _disk_usage_totals
+            UNION ALL
+            SELECT owner_id, group_id, file_count, file_size FROM _disk_usage_deltas) AS usage
+     GROUP BY owner_id, group_id;
+
+CREATE FUNCTION _disk_usage_trigger() RETURNS "trigger" AS $$
+
+    BEGIN
+        IF TG_OP = 'UPDATE' AND
+           OLD.owner_id = NEW.owner_id AND OLD.group_id = NEW.group_id AND
+           OLD.size IS NOT DISTINCT FROM NEW.size THEN
+            RETURN NULL;
+        END IF;
+        IF TG_OP IN ('UPDATE', 'DELETE') THEN
+            INSERT INTO _disk_usage_deltas (owner_id, group_id, file_count, file_size)
+                VALUES (OLD.owner_id, OLD.group_id, -1, -COALESCE(OLD.size, 0));
+        END IF;
+        IF TG_OP IN ('INSERT', 'UPDATE') THEN
+            INSERT INTO _disk_usage_deltas (owner_id, group_id, file_count, file_size)
+                VALUES (NEW.owner_id, NEW.group_id, 1, COALESCE(NEW.size, 0));
+        END IF;
+        RETURN NULL;
+    END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER _disk_usage_trigger
+    AFTER INSERT OR DELETE OR UPDATE OF owner_id, group_id, size ON originalfile
+    FOR EACH ROW EXECUTE PROCEDURE _disk_usage_trigger();
+
+-- Only the roll-up and the recount write _disk_usage_totals. They take this
+-- lock so that they do not run concurrently with each other.
+
+CREATE FUNCTION _disk_usage_lock() RETURNS void AS $$
+
+    SELECT pg_advisory_xact_lock(hashtext('_disk_usage_totals'));
+
+$$ LANGUAGE sql;
+
+CREATE FUNCTION _disk_usage_rollup() RETURNS void AS $$
+
+    BEGIN
+        PERFORM _disk_usage_lock();
+        -- changes committed after this statement starts are left for next time
+        WITH moved AS (
+                DELETE FROM _disk_usage_deltas
+                RETURNING owner_id, group_id, file_count, file_size),
+             sums AS (
+                SELECT owner_id, group_id,
+                       SUM(file_count) AS file_count, SUM(file_size) AS file_size
+                  FROM moved
+                 GROUP BY owner_id, group_id),
+             updated AS (
+                UPDATE _disk_usage_totals AS t
+                   SET file_count = t.file_count + sums.file_count,
+                       file_size = t.file_size + sums.file_size
+                  FROM sums
+                 WHERE t.owner_id = sums.owner_id AND t.group_id = sums.group_id
+                RETURNING t.owner_id, t.group_id)
+        INSERT INTO _disk_usage_totals (owner_id, group_id, file_count, file_size)
+            SELECT owner_id, group_id, file_count, file_size FROM sums
+             WHERE NOT EXISTS (SELECT 1 FROM updated
+                                WHERE updated.owner_id = sums.owner_id
+                                  AND updated.group_id = sums.group_id);
+    END;
+$$ LANGUAGE plpgsql;
+
+CREATE FUNCTION _disk_usage_recount() RETURNS void AS $$
+
+    BEGIN
+        PERFORM _disk_usage_lock();
+        DELETE FROM _disk_usage_totals;
+        -- one statement so that the changes discarded are exactly those
+        -- already reflected in the snapshot of originalfile that is counted
+        WITH discarded AS (
+                DELETE FROM _disk_usage_deltas)
+        INSERT INTO _disk_usage_totals (owner_id, group_id, file_count, file_size)
+            SELECT owner_id, group_id, COUNT(*), COALESCE(SUM(size), 0)
+              FROM originalfile
+             GROUP BY owner_id, group_id;
+    END;
+$$ LANGUAGE plpgsql;
+
+SELECT _disk_usage_recount();
+
+COMMIT;
@@ -0,0 +1,71 @@
+-- Reports how far the full-text indexer is behind and allows the objects of
+-- one group to be queued for reindexing without a full rebuild of the index.
+--
+-- The indexer records the ID of the last event log entry that it processed
+-- in the configuration table. The view _indexer_backlog counts the entries
+-- that remain, the distinct objects to which they refer, and how long the
+-- oldest of them has been waiting:
+--
+--     SELECT * FROM _indexer_backlog;
+--
+-- The objects of a group, e.g. group 3, are queued for reindexing by
+--
+--     SELECT _indexer_reindex_group(3);
+--
+-- which returns how many objects were queued. An object is not queued again
+-- if it is already waiting to be reindexed so repeated calls coalesce.
+
+BEGIN;
+
+CREATE FUNCTION _indexer_current_id() RETURNS BIGINT AS $$
+
+    SELECT COALESCE(
+        (SELECT CAST(value AS BIGINT) FROM configuration
+          WHERE name = 'PersistentEventLogLoader.v2.current_id'), 0);
+
+$$ LANGUAGE sql STABLE;
+
+CREATE VIEW _indexer_backlog AS
+    SELECT COUNT(*) AS entries,
+           COUNT(DISTINCT (el.entitytype, el.entityid)) AS objects,
+           clock_timestamp() - MIN(ev.time) AS lag
+      FROM eventlog el
+      JOIN event ev ON el.event = ev.id
+     WHERE el.id > _indexer_current_id();
+
+CREATE FUNCTION _indexer_reindex_group(_group_id BIGINT) RETURNS BIGINT AS $$
+
+    DECLARE
+        eid BIGINT;
+        added BIGINT;
+        total BIGINT := 0;
+        entity RECORD;
+
+    BEGIN
+        eid := _current_or_new_event();
+        FOR entity IN SELECT * FROM (VALUES
+                ('project', 'ome.model.containers.Project'),
+                ('dataset', 'ome.model.containers.Dataset'),
+                ('image', 'ome.model.core.Image'),
+                ('screen', 'ome.model.screen.Screen'),
+                ('plate', 'ome.model.screen.Plate'),
+                ('plateacquisition', 'ome.model.screen.PlateAcquisition'),
+                ('well', 'ome.model.screen.Well'),
+                ('annotation', 'ome.model.annotations.Annotation'))
+                AS types (entity_table, entity_type)
+        LOOP
+            EXECUTE 'INSERT INTO eventlog (id, action, permissions, entityid, entitytype, event) ' ||
+                    'SELECT ome_nextval(''seq_eventlog''), ''REINDEX'', -52, obj.id, $1, $2 ' ||
+                    'FROM ' || quote_ident(entity.entity_table) || ' obj ' ||
+                    'WHERE obj.group_id = $3 AND NOT EXISTS (SELECT 1 FROM eventlog el ' ||
+                    'WHERE el.id > $4 AND el.action = ''REINDEX'' ' ||
+                    'AND el.entitytype = $1 AND el.entityid = obj.id)'
+                USING entity.entity_type, eid, _group_id, _indexer_current_id();
+            GET DIAGNOSTICS added = ROW_COUNT;
+            total := total + added;
+        END LOOP;
+        RETURN total;
+    END;
+$$ LANGUAGE plpgsql;
+
+COMMIT;